@@ -1,14 +1,42 @@
 import java.io.*;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.*;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class JDBCClient {
 
@@ -60,6 +88,1826 @@ public class JDBCClient {
         }
     }
 
+    // Grows or shrinks the fetch size of a result set so a batch stays within
+    // the memory budget and the round trip latency target
+    public static class FetchTuner {
+
+        static final int DEFAULT_FETCH_SIZE = 10, MAX_FETCH_SIZE = 100000;
+        /* what a LOB locator takes in a fetch, its content is only read on access */
+        static final int LOB_LOCATOR_SIZE = 128;
+
+        private final ResultSet rset;
+        private final boolean adaptive, observing;
+        private final long memoryBudget, targetLatency;
+        private final int initialSize;
+        private int fetchSize, batchRows;
+        private long rows, bytes, batchNanos, fetchNanos;
+
+        /* observing sizes every fetched value for the report, adaptive implies it */
+        public FetchTuner(ResultSet rset, boolean adaptive, boolean observing, long memoryBudget, long targetLatency) {
+            this.rset = rset;
+            this.adaptive = adaptive;
+            this.observing = adaptive || observing;
+            this.memoryBudget = memoryBudget;
+            this.targetLatency = targetLatency;
+            int fs = 0;
+            try {
+                fs = rset.getFetchSize();
+            } catch (SQLException e) {
+            }
+            initialSize = fetchSize = fs > 0 ? fs : DEFAULT_FETCH_SIZE;
+        }
+
+        public boolean next() throws SQLException {
+            long t = System.nanoTime();
+            boolean more = rset.next();
+            t = System.nanoTime() - t;
+            batchNanos += t;
+            fetchNanos += t;
+            if (more) {
+                rows++;
+                if (++batchRows >= fetchSize)
+                    retune();
+            }
+            return more;
+        }
+
+        /* account the (approximate) size of a fetched value */
+        public void observe(Object o) {
+            if (observing)
+                bytes += approxSize(o);
+        }
+
+        private void retune() {
+            /* every window of fetchSize next() calls contains about one round trip */
+            long latency = batchNanos / 1000000;
+            batchRows = 0;
+            batchNanos = 0;
+            if (!adaptive)
+                return;
+            long rowBytes = Math.max(1, bytes / rows);
+            long maxByMemory = Math.max(1, memoryBudget / rowBytes);
+            long size = fetchSize;
+            if (latency * 2 < targetLatency) {
+                size = size * 2;
+            } else if (latency > targetLatency) {
+                size = size * targetLatency / latency;
+            }
+            size = Math.max(1, Math.min(Math.min(size, maxByMemory), MAX_FETCH_SIZE));
+            if (size == fetchSize)
+                return;
+            try {
+                rset.setFetchSize((int) size);
+                fetchSize = (int) size;
+            } catch (SQLException e) {
+                /* driver doesn't allow changing it mid way, stay where we are */
+            }
+        }
+
+        public String report() {
+            return String.format(
+                    "fetch size: %d -> %d (%s), avg row: %d bytes, fetch rate: %.0f rows/s",
+                    initialSize, fetchSize, adaptive ? "adaptive" : "fixed",
+                    rows == 0 ? 0 : bytes / rows,
+                    fetchNanos == 0 ? 0.0 : rows * 1e9 / fetchNanos
+            );
+        }
+
+        static long approxSize(Object o) {
+            if (o == null) return 0;
+            if (o instanceof String) return ((String) o).length();
+            if (o instanceof byte[]) return ((byte[]) o).length;
+            if (o instanceof Number || o instanceof java.util.Date) return 8;
+            if (o instanceof Boolean) return 1;
+            /* length() would be a round trip per cell on some drivers */
+            if (o instanceof Blob || o instanceof Clob) return LOB_LOCATOR_SIZE;
+            return o.toString().length();
+        }
+    }
+
+    // A batch of rows published by ResultPublisher
+    public static class RowBatch {
+        public final String[] columns, types;
+        public final List<Object[]> rows;
+
+        public RowBatch(String[] columns, String[] types, List<Object[]> rows) {
+            this.columns = columns;
+            this.types = types;
+            this.rows = rows;
+        }
+    }
+
+    // Streams the result of a query as batches of rows. Fetching pauses while
+    // the subscriber has no outstanding demand, cancel() cancels the running
+    // statement and the cursor is released once the result is drained. LOBs
+    // are read into byte[] / String before a batch is published, as their
+    // locators don't outlive the cursor.
+    public static class ResultPublisher implements Flow.Publisher<RowBatch> {
+
+        private final Connection conn;
+        private final String sql;
+        private final int batchSize;
+        private final Executor executor;
+        private final AtomicBoolean subscribed = new AtomicBoolean();
+
+        public ResultPublisher(Connection conn, String sql, int batchSize) {
+            this(conn, sql, batchSize, r -> {
+                Thread t = new Thread(r, "jdbcc-publisher");
+                t.setDaemon(true);
+                t.start();
+            });
+        }
+
+        public ResultPublisher(Connection conn, String sql, int batchSize, Executor executor) {
+            this.conn = conn;
+            this.sql = sql;
+            this.batchSize = Math.max(1, batchSize);
+            this.executor = executor;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super RowBatch> subscriber) {
+            Objects.requireNonNull(subscriber);
+            RowSubscription subscription = new RowSubscription(subscriber);
+            if (!subscribed.compareAndSet(false, true)) {
+                /* the cursor is forward only, it can be consumed just once */
+                subscription.cancelled = true;
+                subscriber.onSubscribe(subscription);
+                subscriber.onError(new IllegalStateException("result of [" + sql + "] is already subscribed"));
+                return;
+            }
+            subscriber.onSubscribe(subscription);
+            executor.execute(subscription::run);
+        }
+
+        @Override
+        public String toString() {
+            return "publisher of [" + sql + "]";
+        }
+
+        private class RowSubscription implements Flow.Subscription {
+
+            private final Flow.Subscriber<? super RowBatch> subscriber;
+            private long demand;
+            private volatile boolean cancelled;
+            private volatile Statement stmt;
+            private volatile Throwable invalidRequest;
+            private ResultSet rset;
+
+            RowSubscription(Flow.Subscriber<? super RowBatch> subscriber) {
+                this.subscriber = subscriber;
+            }
+
+            @Override
+            public synchronized void request(long n) {
+                if (n <= 0) {
+                    /* signalled from the publisher thread, onNext may be running now */
+                    if (invalidRequest == null)
+                        invalidRequest = new IllegalArgumentException("non-positive request: " + n);
+                    cancel();
+                    return;
+                }
+                demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+                notifyAll();
+            }
+
+            @Override
+            public void cancel() {
+                synchronized (this) {
+                    cancelled = true;
+                    notifyAll();
+                }
+                Statement s = stmt;
+                if (s != null) {
+                    try {
+                        s.cancel();
+                    } catch (SQLException e) {
+                    }
+                }
+            }
+
+            private synchronized boolean awaitDemand() throws InterruptedException {
+                while (demand == 0 && !cancelled)
+                    wait();
+                if (cancelled)
+                    return false;
+                demand--;
+                return true;
+            }
+
+            private void run() {
+                Throwable failure = null;
+                boolean completed = false;
+                try {
+                    /* don't hit the database until someone asks for rows */
+                    if (!awaitDemand())
+                        return;
+                    stmt = conn.createStatement();
+                    /* a cancel() before the statement was set couldn't cancel it */
+                    if (cancelled)
+                        return;
+                    stmt.setFetchSize(batchSize);
+                    rset = stmt.executeQuery(sql);
+                    ResultSetMetaData rsmd = rset.getMetaData();
+                    int numCols = rsmd.getColumnCount();
+                    String[] columns = new String[numCols], types = new String[numCols];
+                    for (int i = 0; i < numCols; i++) {
+                        columns[i] = rsmd.getColumnName(i + 1);
+                        types[i] = rsmd.getColumnTypeName(i + 1);
+                    }
+                    boolean more = true;
+                    do {
+                        List<Object[]> rows = new ArrayList<>(batchSize);
+                        while (rows.size() < batchSize && (more = rset.next())) {
+                            Object[] row = new Object[numCols];
+                            for (int i = 0; i < numCols; i++)
+                                row[i] = materialize(rset.getObject(i + 1));
+                            rows.add(row);
+                        }
+                        if (!rows.isEmpty())
+                            subscriber.onNext(new RowBatch(columns, types, rows));
+                    } while (more && awaitDemand());
+                    if (!more) {
+                        release();
+                        completed = true;
+                        subscriber.onComplete();
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                } finally {
+                    release();
+                    if (!completed) {
+                        Throwable error = invalidRequest != null ? invalidRequest : cancelled ? null : failure;
+                        if (error != null)
+                            subscriber.onError(error);
+                    }
+                }
+            }
+
+            private Object materialize(Object o) throws SQLException {
+                if (o instanceof Blob) {
+                    Blob blob = (Blob) o;
+                    byte[] bytes = blob.getBytes(1, (int) blob.length());
+                    try {
+                        blob.free();
+                    } catch (SQLException | AbstractMethodError e) {
+                    }
+                    return bytes;
+                }
+                if (o instanceof Clob) {
+                    Clob clob = (Clob) o;
+                    String str = clob.getSubString(1, (int) clob.length());
+                    try {
+                        clob.free();
+                    } catch (SQLException | AbstractMethodError e) {
+                    }
+                    return str;
+                }
+                return o;
+            }
+
+            private void release() {
+                try {
+                    if (stmt != null)
+                        stmt.close();
+                } catch (SQLException e) {
+                }
+                stmt = null;
+                rset = null;
+            }
+        }
+    }
+
+    // Base of the built in subscribers, requests a batch at a time
+    public static abstract class BatchSubscriber implements Flow.Subscriber<RowBatch> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Flow.Subscription subscription;
+        private volatile Throwable error;
+        protected long rows;
+
+        /* return false to stop the stream */
+        protected abstract boolean consume(RowBatch batch) throws Exception;
+
+        protected void finish() throws Exception {
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(RowBatch batch) {
+            if (done.getCount() == 0)
+                return;
+            try {
+                if (consume(batch)) {
+                    subscription.request(1);
+                    return;
+                }
+                subscription.cancel();
+                end(null);
+            } catch (Exception e) {
+                subscription.cancel();
+                end(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            end(t);
+        }
+
+        @Override
+        public void onComplete() {
+            end(null);
+        }
+
+        private synchronized void end(Throwable t) {
+            if (done.getCount() == 0)
+                return;
+            error = t;
+            try {
+                finish();
+            } catch (Exception e) {
+                if (error == null)
+                    error = e;
+            }
+            done.countDown();
+        }
+
+        /* waits for the stream to end and returns the number of rows consumed */
+        public long await() throws Exception {
+            done.await();
+            if (error instanceof Exception)
+                throw (Exception) error;
+            if (error != null)
+                throw new RuntimeException(error);
+            return rows;
+        }
+    }
+
+    // Renders the stream on the console like the shell does, up to limit rows
+    public static class ConsoleSubscriber extends BatchSubscriber {
+
+        protected final int limit;
+        protected final Map<String, Transformer> transformers;
+        protected int width;
+
+        public ConsoleSubscriber(int limit, Map<String, Transformer> transformers) {
+            this.limit = limit;
+            this.transformers = transformers;
+        }
+
+        protected void header(String[] cols) {
+            for (String col : cols)
+                width = Math.max(width, col.length());
+            for (String col : cols)
+                System.out.printf("%-" + width + "s |", col);
+            System.out.println();
+            for (int i = 0; i < cols.length; i++) {
+                for (int j = 0; j < width; j++)
+                    System.out.append("-");
+                System.out.append("-+");
+            }
+            System.out.println();
+        }
+
+        protected void startRow() {
+        }
+
+        protected void cell(Object data) {
+            System.out.printf("%-" + width + "s |", data);
+        }
+
+        protected void endRow() {
+            System.out.println();
+        }
+
+        @Override
+        protected boolean consume(RowBatch batch) throws Exception {
+            if (rows == 0) {
+                String[] cols = new String[batch.columns.length];
+                for (int i = 0; i < cols.length; i++)
+                    cols[i] = String.format("%s (%s)", batch.columns[i], batch.types[i]);
+                header(cols);
+            }
+            for (Object[] row : batch.rows) {
+                if (rows == limit)
+                    return false;
+                startRow();
+                for (int i = 0; i < row.length; i++)
+                    cell(transform(transformers, batch.columns[i], batch.types[i], row[i]));
+                endRow();
+                rows++;
+            }
+            return rows != limit;
+        }
+
+        @Override
+        protected void finish() {
+            System.out.println();
+            clog(String.format("%d rows (%s)", rows, rows == limit ? "limited" : "all"));
+        }
+    }
+
+    // Renders the stream on the console and into the session recording
+    public class RecordSubscriber extends ConsoleSubscriber {
+
+        public RecordSubscriber() {
+            super(conf.resultPrintLimit, conf.transformers);
+            $("<table border='1' style='border-collapse: collapse;'>");
+        }
+
+        @Override
+        protected void header(String[] cols) {
+            super.header(cols);
+            $("<tr>");
+            for (String col : cols)
+                $("<th style='background-color: lightgray'>").$(col).$("</th>");
+            $("</tr>");
+        }
+
+        @Override
+        protected void startRow() {
+            $("<tr>");
+        }
+
+        @Override
+        protected void cell(Object data) {
+            super.cell(data);
+            $("<td>").$(data).$("</td>");
+        }
+
+        @Override
+        protected void endRow() {
+            super.endRow();
+            $("</tr>");
+        }
+
+        @Override
+        protected void finish() {
+            $("</table>");
+            super.finish();
+        }
+    }
+
+    // Exports the stream as CSV
+    public static class ExportSubscriber extends BatchSubscriber {
+
+        private final Writer out;
+        private final Map<String, Transformer> transformers;
+
+        public ExportSubscriber(Writer out, Map<String, Transformer> transformers) {
+            this.out = out;
+            this.transformers = transformers;
+        }
+
+        @Override
+        protected boolean consume(RowBatch batch) throws Exception {
+            if (rows == 0)
+                line(batch.columns);
+            for (Object[] row : batch.rows) {
+                Object[] vals = new Object[row.length];
+                for (int i = 0; i < row.length; i++)
+                    vals[i] = transform(transformers, batch.columns[i], batch.types[i], row[i]);
+                line(vals);
+                rows++;
+            }
+            return true;
+        }
+
+        private void line(Object[] vals) throws IOException {
+            for (int i = 0; i < vals.length; i++) {
+                if (i > 0)
+                    out.write(',');
+                if (vals[i] == null)
+                    continue;
+                String v = vals[i].toString();
+                if (v.contains(",") || v.contains("\"") || v.contains("\n"))
+                    v = "\"" + v.replace("\"", "\"\"") + "\"";
+                out.write(v);
+            }
+            out.write('\n');
+        }
+
+        @Override
+        protected void finish() throws Exception {
+            out.close();
+        }
+    }
+
+    // Serves repeated read only queries from memory. Entries hold the printed
+    // rows and are keyed by the normalized SQL, the print limit and the
+    // connection. They expire after a TTL, are evicted least
+    // recently used first beyond a size limit and are dropped when the session
+    // changes a table they read.
+    public static class QueryCache {
+
+        static final Pattern READ_ONLY = Pattern.compile("^(select|with)\\b(?!.*\\b(insert|update|delete|merge)\\b).*");
+        static final Pattern IDENTIFIER = Pattern.compile("\"[^\"]+\"|[A-Za-z_][\\w$#]*");
+        static final Pattern TARGET = Pattern.compile("\\b(?:into|update|from|table)\\s+((?:\"[^\"]+\"|[\\w$#]+)(?:\\.(?:\"[^\"]+\"|[\\w$#]+))*)");
+
+        private final ResultCache store = new ResultCache();
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final WeakHashMap<Connection, Long> connIds = new WeakHashMap<>();
+        private long hits, misses, invalidated, evicted, expired, nextConnId;
+
+        private class Entry {
+            final ResultCache.CachedResult result;
+            final Set<String> tables;
+            final long expiry;
+
+            Entry(ResultCache.CachedResult result, Set<String> tables, long expiry) {
+                this.result = result;
+                this.tables = tables;
+                this.expiry = expiry;
+            }
+
+            long size() {
+                return result.heapBytes + result.spilledBytes;
+            }
+        }
+
+        /* collapses white space and lower cases everything outside quotes */
+        static String normalize(String sql) {
+            StringBuilder sb = new StringBuilder();
+            char quote = 0;
+            boolean space = false;
+            for (char c : sql.trim().toCharArray()) {
+                if (quote != 0) {
+                    sb.append(c);
+                    if (c == quote)
+                        quote = 0;
+                    continue;
+                }
+                if (Character.isWhitespace(c)) {
+                    space = true;
+                    continue;
+                }
+                if (space && sb.length() > 0)
+                    sb.append(' ');
+                space = false;
+                if (c == '\'' || c == '"')
+                    quote = c;
+                sb.append(Character.toLowerCase(c));
+            }
+            while (sb.length() > 0 && (sb.charAt(sb.length() - 1) == ';' || sb.charAt(sb.length() - 1) == ' '))
+                sb.setLength(sb.length() - 1);
+            return sb.toString();
+        }
+
+        static boolean readOnly(String sql) {
+            String n = normalize(sql);
+            return READ_ONLY.matcher(n).matches() && !n.contains(" for update");
+        }
+
+        private static String table(String name) {
+            name = name.substring(name.lastIndexOf('.') + 1);
+            return (name.startsWith("\"") ? name.substring(1, name.length() - 1) : name).toUpperCase();
+        }
+
+        /* every identifier of the query, a superset of the tables it reads */
+        static Set<String> identifiers(String sql) {
+            Set<String> ret = new HashSet<>();
+            Matcher m = IDENTIFIER.matcher(normalize(sql));
+            while (m.find())
+                ret.add(table(m.group()));
+            return ret;
+        }
+
+        /* tables written by a DML / DDL statement, empty if they can't be told */
+        static Set<String> targets(String sql) {
+            Set<String> ret = new HashSet<>();
+            Matcher m = TARGET.matcher(normalize(sql));
+            while (m.find())
+                ret.add(table(m.group(1)));
+            return ret;
+        }
+
+        /* connections get ids which are never reused, identity hashes can be */
+        private String key(Connection conn, String sql, int limit) {
+            return connIds.computeIfAbsent(conn, c -> ++nextConnId) + ":" + limit + ":" + normalize(sql);
+        }
+
+        public synchronized ResultSet get(Connection conn, String sql, int limit) {
+            if (!readOnly(sql))
+                return null;
+            String key = key(conn, sql, limit);
+            Entry e = entries.get(key);
+            if (e != null && e.expiry < System.currentTimeMillis()) {
+                drop(key);
+                expired++;
+                e = null;
+            }
+            if (e == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return e.result.resultSet();
+        }
+
+        ResultCache.CachedResult create(String sql, String[] names, String[] types, int[] sqlTypes, boolean[] transformed, boolean[] integral, long maxBytes) {
+            return store.create(sql, names, types, sqlTypes, transformed, integral, Integer.MAX_VALUE, maxBytes, maxBytes);
+        }
+
+        synchronized void put(Connection conn, String sql, int limit, ResultCache.CachedResult result, long ttlMillis, long maxBytes) {
+            String key = key(conn, sql, limit);
+            drop(key);
+            Entry entry = new Entry(result, identifiers(sql), System.currentTimeMillis() + ttlMillis);
+            if (entry.size() > maxBytes) {
+                store.drop(result);
+                return;
+            }
+            entries.put(key, entry);
+            long size = entries.values().stream().mapToLong(Entry::size).sum();
+            for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); size > maxBytes && it.hasNext(); ) {
+                Entry e = it.next().getValue();
+                size -= e.size();
+                store.drop(e.result);
+                it.remove();
+                evicted++;
+            }
+        }
+
+        void discard(ResultCache.CachedResult result) {
+            store.drop(result);
+        }
+
+        /* false once a pending result was discarded */
+        boolean holds(ResultCache.CachedResult result) {
+            return store.contains(result);
+        }
+
+        /* drops the entries reading the tables the statement writes */
+        public synchronized void invalidate(String sql) {
+            Set<String> tables = targets(sql);
+            for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+                Entry e = it.next().getValue();
+                if (tables.isEmpty() || !Collections.disjoint(tables, e.tables)) {
+                    store.drop(e.result);
+                    it.remove();
+                    invalidated++;
+                }
+            }
+        }
+
+        public synchronized void clear() {
+            for (Entry e : entries.values())
+                store.drop(e.result);
+            entries.clear();
+        }
+
+        private void drop(String key) {
+            Entry e = entries.remove(key);
+            if (e != null)
+                store.drop(e.result);
+        }
+
+        @Override
+        public synchronized String toString() {
+            long lookups = hits + misses;
+            return String.format("query cache: %d entries (%d KB), hits: %d, misses: %d, hit rate: %.1f%%, invalidated: %d, evicted: %d, expired: %d",
+                    entries.size(), entries.values().stream().mapToLong(Entry::size).sum() / 1024,
+                    hits, misses, lookups == 0 ? 0.0 : hits * 100.0 / lookups, invalidated, evicted, expired);
+        }
+    }
+
+    // On disk snapshot of the database catalog (tables, columns, keys and
+    // indexes) built by !crawl, searchable by name prefix
+    public static class Catalog {
+
+        static final int FORMAT = 1;
+
+        static class SchemaSnapshot {
+            final String name;
+            final int signature;
+            final List<String[]> entries; // {kind, qualified name, detail}
+
+            SchemaSnapshot(String name, int signature, List<String[]> entries) {
+                this.name = name;
+                this.signature = signature;
+                this.entries = entries;
+            }
+        }
+
+        private final File file;
+        private final Map<String, SchemaSnapshot> schemas = new TreeMap<>();
+        private final TreeMap<String, String[]> index = new TreeMap<>();
+
+        Catalog(File file) {
+            this.file = file;
+        }
+
+        static Catalog load(File file) throws IOException {
+            Catalog cat = new Catalog(file);
+            if (!file.exists())
+                return cat;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+                if (in.readInt() != FORMAT)
+                    return cat;
+                for (int s = in.readInt(); s > 0; s--) {
+                    String name = in.readUTF();
+                    int signature = in.readInt();
+                    List<String[]> entries = new ArrayList<>();
+                    for (int e = in.readInt(); e > 0; e--)
+                        entries.add(new String[]{in.readUTF(), in.readUTF(), in.readUTF()});
+                    cat.put(new SchemaSnapshot(name, signature, entries));
+                }
+            }
+            return cat;
+        }
+
+        synchronized void save() throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+                out.writeInt(FORMAT);
+                out.writeInt(schemas.size());
+                for (SchemaSnapshot s : schemas.values()) {
+                    out.writeUTF(s.name);
+                    out.writeInt(s.signature);
+                    out.writeInt(s.entries.size());
+                    for (String[] e : s.entries) {
+                        for (String v : e)
+                            out.writeUTF(v);
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        synchronized SchemaSnapshot get(String schema) {
+            return schemas.get(schema);
+        }
+
+        synchronized Set<String> schemaNames() {
+            return new TreeSet<>(schemas.keySet());
+        }
+
+        synchronized void put(SchemaSnapshot s) {
+            unindex(schemas.put(s.name, s));
+            for (String[] e : s.entries) {
+                String name = e[1].toUpperCase();
+                index.put(name + '\0' + e[0], e);
+                /* tables can be looked up without the schema too, one key per schema */
+                if (e[0].equals("TABLE") && name.indexOf('.') != -1)
+                    index.put(name.substring(name.indexOf('.') + 1) + '\0' + name + '\0' + e[0], e);
+            }
+        }
+
+        synchronized void remove(String schema) {
+            unindex(schemas.remove(schema));
+        }
+
+        private void unindex(SchemaSnapshot s) {
+            if (s == null)
+                return;
+            for (String[] e : s.entries) {
+                String name = e[1].toUpperCase();
+                index.remove(name + '\0' + e[0]);
+                if (e[0].equals("TABLE") && name.indexOf('.') != -1)
+                    index.remove(name.substring(name.indexOf('.') + 1) + '\0' + name + '\0' + e[0]);
+            }
+        }
+
+        public synchronized List<String> find(String prefix, int limit) {
+            String p = prefix.toUpperCase();
+            Set<String[]> found = new LinkedHashSet<>();
+            for (String[] e : index.subMap(p, true, p + Character.MAX_VALUE, true).values()) {
+                if (found.size() == limit)
+                    break;
+                found.add(e);
+            }
+            return found.stream().map(e -> String.format("%-6s %-40s %s", e[0], e[1], e[2])).collect(Collectors.toList());
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("catalog %s (%d schemas, %d entries)", file, schemas.size(), index.size());
+        }
+    }
+
+    // Walks DatabaseMetaData in parallel over a pool of connections and
+    // refreshes the schemas whose table list changed since the last crawl.
+    // Drivers without schemas (e.g. MySQL) are crawled by catalog instead.
+    class Crawler {
+
+        /* the snapshot is saved at most this often while crawling */
+        static final long SAVE_INTERVAL = 5000;
+
+        private final Catalog catalog;
+        private final String schemaPattern;
+        private volatile boolean byCatalog;
+        private final ExecutorService pool;
+        private final List<Connection> conns = Collections.synchronizedList(new ArrayList<>());
+        private final ThreadLocal<Connection> local = new ThreadLocal<>();
+
+        Crawler(Catalog catalog, String schemaPattern) {
+            this.catalog = catalog;
+            this.schemaPattern = schemaPattern;
+            this.pool = Executors.newFixedThreadPool(Math.max(1, conf.crawlThreads), r -> {
+                Thread t = new Thread(r, "jdbcc-crawler");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        private DatabaseMetaData md() throws SQLException {
+            Connection c = local.get();
+            if (c == null) {
+                c = DriverManager.getConnection(conf.url, conf.user, conf.password);
+                conns.add(c);
+                local.set(c);
+            }
+            return c.getMetaData();
+        }
+
+        String run() throws Exception {
+            long t = System.currentTimeMillis(), saved = t;
+            int refreshed = 0, tables = 0, skipped = 0;
+            try {
+                List<String> schemas = pool.submit(this::schemas).get();
+                Map<String, Future<List<String[]>>> tableLists = new LinkedHashMap<>();
+                for (String schema : schemas)
+                    tableLists.put(schema, pool.submit(() -> tables(schema)));
+
+                Map<String, List<Future<List<String[]>>>> crawls = new LinkedHashMap<>();
+                Map<String, Integer> signatures = new HashMap<>();
+                for (Map.Entry<String, Future<List<String[]>>> e : tableLists.entrySet()) {
+                    String schema = e.getKey();
+                    List<String[]> tabs;
+                    try {
+                        tabs = e.getValue().get();
+                    } catch (ExecutionException ex) {
+                        skip(schema, ex);
+                        skipped++;
+                        continue;
+                    }
+                    tables += tabs.size();
+                    int signature = tabs.stream().map(r -> r[1] + ":" + r[2]).sorted().collect(Collectors.toList()).hashCode();
+                    Catalog.SchemaSnapshot old = catalog.get(schema);
+                    if (old != null && old.signature == signature)
+                        continue;
+                    List<Future<List<String[]>>> parts = new ArrayList<>();
+                    parts.add(CompletableFuture.completedFuture(tabs));
+                    parts.add(pool.submit(() -> columns(schema)));
+                    for (String[] tab : tabs)
+                        parts.add(pool.submit(() -> keysAndIndexes(schema, tab[1].substring(tab[1].indexOf('.') + 1))));
+                    crawls.put(schema, parts);
+                    signatures.put(schema, signature);
+                }
+
+                for (Map.Entry<String, List<Future<List<String[]>>>> e : crawls.entrySet()) {
+                    String schema = e.getKey();
+                    List<Future<List<String[]>>> parts = e.getValue();
+                    List<String[]> entries = new ArrayList<>(), tabs;
+                    try {
+                        /* the table and column lists make the snapshot, without them the old one stays */
+                        entries.addAll(tabs = parts.get(0).get());
+                        entries.addAll(parts.get(1).get());
+                    } catch (ExecutionException ex) {
+                        skip(schema, ex);
+                        skipped++;
+                        continue;
+                    }
+                    /* keys and indexes of a table we may not read are left out */
+                    for (int i = 2; i < parts.size(); i++) {
+                        try {
+                            entries.addAll(parts.get(i).get());
+                        } catch (ExecutionException ex) {
+                            skip(tabs.get(i - 2)[1], ex);
+                            skipped++;
+                        }
+                    }
+                    catalog.put(new Catalog.SchemaSnapshot(schema, signatures.get(schema), entries));
+                    refreshed++;
+                    if (System.currentTimeMillis() - saved > SAVE_INTERVAL) {
+                        catalog.save();
+                        saved = System.currentTimeMillis();
+                    }
+                }
+
+                /* drop the schemas which are gone */
+                for (String schema : catalog.schemaNames()) {
+                    if (matches(schema) && !schemas.contains(schema))
+                        catalog.remove(schema);
+                }
+                catalog.save();
+                return String.format("catalog crawl of %s: %d %s (%d refreshed), %d tables, %d skipped, time: %dms",
+                        schemaPattern, schemas.size(), byCatalog ? "catalogs" : "schemas", refreshed, tables, skipped,
+                        System.currentTimeMillis() - t);
+            } finally {
+                pool.shutdownNow();
+                for (Connection c : conns) {
+                    try {
+                        c.close();
+                    } catch (SQLException e) {
+                    }
+                }
+            }
+        }
+
+        private List<String> schemas() throws SQLException {
+            List<String> ret = new ArrayList<>();
+            try (ResultSet r = md().getSchemas(null, schemaPattern)) {
+                while (r.next())
+                    ret.add(r.getString("TABLE_SCHEM"));
+            }
+            if (!ret.isEmpty())
+                return ret;
+            try (ResultSet r = md().getCatalogs()) {
+                while (r.next()) {
+                    String cat = r.getString("TABLE_CAT");
+                    if (matches(cat))
+                        ret.add(cat);
+                }
+            }
+            byCatalog = !ret.isEmpty();
+            return ret;
+        }
+
+        /* schemaPattern as a regex, getCatalogs can't filter and the cleanup needs it */
+        private boolean matches(String name) {
+            StringBuilder regex = new StringBuilder();
+            for (String part : schemaPattern.split("((?<=[%_])|(?=[%_]))"))
+                regex.append(part.equals("%") ? ".*" : part.equals("_") ? "." : Pattern.quote(part));
+            return name != null && name.matches(regex.toString());
+        }
+
+        private void skip(String what, ExecutionException e) {
+            clog("catalog crawl skipped " + what + ": " + e.getCause().getMessage());
+        }
+
+        /* metadata arguments and result columns naming the crawled schema or catalog */
+        private String cat(String schema) {
+            return byCatalog ? schema : null;
+        }
+
+        private String schem(DatabaseMetaData md, String schema, boolean pattern) throws SQLException {
+            return byCatalog ? null : pattern ? escape(md, schema) : schema;
+        }
+
+        private String owner(ResultSet r, String prefix) throws SQLException {
+            return r.getString(prefix + (byCatalog ? "_CAT" : "_SCHEM"));
+        }
+
+        /* schema names are patterns in getTables / getColumns */
+        private String escape(DatabaseMetaData md, String name) throws SQLException {
+            String esc = md.getSearchStringEscape();
+            if (esc == null || esc.isEmpty())
+                return name;
+            return name.replace(esc, esc + esc).replace("_", esc + "_").replace("%", esc + "%");
+        }
+
+        private List<String[]> tables(String schema) throws SQLException {
+            List<String[]> ret = new ArrayList<>();
+            DatabaseMetaData md = md();
+            try (ResultSet r = md.getTables(cat(schema), schem(md, schema, true), "%", null)) {
+                while (r.next()) {
+                    if (!schema.equals(owner(r, "TABLE")))
+                        continue;
+                    ret.add(new String[]{"TABLE", schema + "." + r.getString("TABLE_NAME"), String.valueOf(r.getString("TABLE_TYPE"))});
+                }
+            }
+            return ret;
+        }
+
+        private List<String[]> columns(String schema) throws SQLException {
+            List<String[]> ret = new ArrayList<>();
+            DatabaseMetaData md = md();
+            try (ResultSet r = md.getColumns(cat(schema), schem(md, schema, true), "%", "%")) {
+                while (r.next()) {
+                    if (!schema.equals(owner(r, "TABLE")))
+                        continue;
+                    ret.add(new String[]{
+                            "COLUMN",
+                            schema + "." + r.getString("TABLE_NAME") + "." + r.getString("COLUMN_NAME"),
+                            String.format("%s(%d)%s", r.getString("TYPE_NAME"), r.getInt("COLUMN_SIZE"),
+                                    r.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls ? " NOT NULL" : "")
+                    });
+                }
+            }
+            return ret;
+        }
+
+        private List<String[]> keysAndIndexes(String schema, String table) throws SQLException {
+            List<String[]> ret = new ArrayList<>();
+            String name = schema + "." + table;
+            DatabaseMetaData md = md();
+
+            TreeMap<Short, String> pk = new TreeMap<>();
+            try (ResultSet r = md.getPrimaryKeys(cat(schema), schem(md, schema, false), table)) {
+                while (r.next())
+                    pk.put(r.getShort("KEY_SEQ"), r.getString("COLUMN_NAME"));
+            }
+            if (!pk.isEmpty())
+                ret.add(new String[]{"PK", name, "primary key (" + String.join(", ", pk.values()) + ")"});
+
+            Map<String, List<String>> indexes = new LinkedHashMap<>();
+            Map<String, Boolean> unique = new HashMap<>();
+            try (ResultSet r = md.getIndexInfo(cat(schema), schem(md, schema, false), table, false, true)) {
+                while (r.next()) {
+                    String idx = r.getString("INDEX_NAME");
+                    if (idx == null || r.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic)
+                        continue;
+                    indexes.computeIfAbsent(idx, k -> new ArrayList<>()).add(r.getString("COLUMN_NAME"));
+                    unique.put(idx, !r.getBoolean("NON_UNIQUE"));
+                }
+            }
+            for (Map.Entry<String, List<String>> e : indexes.entrySet())
+                ret.add(new String[]{"INDEX", name + "." + e.getKey(), (unique.get(e.getKey()) ? "unique " : "") + "index (" + String.join(", ", e.getValue()) + ")"});
+
+            Map<String, String[]> fks = new LinkedHashMap<>();
+            try (ResultSet r = md.getImportedKeys(cat(schema), schem(md, schema, false), table)) {
+                while (r.next()) {
+                    String fk = r.getString("FK_NAME"), pkTable = owner(r, "PKTABLE") + "." + r.getString("PKTABLE_NAME");
+                    String[] cols = fks.computeIfAbsent(fk != null ? fk : "FK_" + pkTable, k -> new String[]{"", "", pkTable});
+                    cols[0] += (cols[0].isEmpty() ? "" : ", ") + r.getString("FKCOLUMN_NAME");
+                    cols[1] += (cols[1].isEmpty() ? "" : ", ") + r.getString("PKCOLUMN_NAME");
+                }
+            }
+            for (Map.Entry<String, String[]> e : fks.entrySet()) {
+                String[] c = e.getValue();
+                ret.add(new String[]{"FK", name + "." + e.getKey(), String.format("(%s) -> %s(%s)", c[0], c[2], c[1])});
+            }
+            return ret;
+        }
+    }
+
+    // Drains a query without rendering it, in passes of increasing client side
+    // work, to tell database and network cost apart from our own
+    class Profiler {
+
+        private final String[] passes = {"next()", "getObject", "transform"};
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        String run(String sql) throws Exception {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-10s %10s %10s %10s %10s %12s %10s %12s %8s\n",
+                    "pass", "rows", "exec(ms)", "first(ms)", "total(ms)", "rows/s", "KB/s", "alloc KB/s", "gc(ms)"));
+            String[] columns = null;
+            long[] colBytes = null;
+            double seconds = 0;
+            for (int level = 0; level < passes.length; level++) {
+                long gc = gcTime(), alloc = allocated(), t = System.nanoTime(), exec, first = 0, rows = 0, bytes = 0;
+                try (Statement st = conn.createStatement()) {
+                    if (conf.fetchSize > 0)
+                        st.setFetchSize(conf.fetchSize);
+                    try (ResultSet r = st.executeQuery(sql)) {
+                        exec = System.nanoTime() - t;
+                        ResultSetMetaData rsmd = r.getMetaData();
+                        int numCols = rsmd.getColumnCount();
+                        String[] names = new String[numCols], types = new String[numCols];
+                        for (int i = 0; i < numCols; i++) {
+                            names[i] = rsmd.getColumnName(i + 1);
+                            types[i] = rsmd.getColumnTypeName(i + 1);
+                        }
+                        long[] perCol = new long[numCols];
+                        StringBuilder cell = new StringBuilder();
+                        while (r.next()) {
+                            if (rows++ == 0)
+                                first = System.nanoTime() - t;
+                            if (level == 0)
+                                continue;
+                            for (int i = 0; i < numCols; i++) {
+                                Object data = r.getObject(i + 1);
+                                perCol[i] += FetchTuner.approxSize(data);
+                                if (level == 2) {
+                                    /* what printResult would do, minus the terminal */
+                                    data = transform(conf.transformers, names[i], types[i], data);
+                                    cell.setLength(0);
+                                    cell.append(String.format("%-20s |", data));
+                                }
+                            }
+                        }
+                        for (long b : perCol)
+                            bytes += b;
+                        if (level == 1) {
+                            columns = names;
+                            colBytes = perCol;
+                        }
+                    }
+                }
+                long total = System.nanoTime() - t;
+                double secs = total / 1e9;
+                if (level == 1)
+                    seconds = secs;
+                sb.append(String.format("%-10s %10d %10d %10d %10d %12.0f %10s %12s %8d\n",
+                        passes[level], rows, exec / 1000000, first / 1000000, total / 1000000, rows / secs,
+                        level == 0 ? "-" : String.format("%.1f", bytes / 1024.0 / secs),
+                        alloc < 0 ? "-" : String.format("%.1f", (allocated() - alloc) / 1024.0 / secs),
+                        gcTime() - gc));
+            }
+            if (columns != null) {
+                sb.append("\napproximate column throughput (getObject pass)\n");
+                for (int i = 0; i < columns.length; i++)
+                    sb.append(String.format("  %-30s %12.1f KB/s\n", columns[i], colBytes[i] / 1024.0 / seconds));
+            }
+            return sb.toString();
+        }
+
+        /* bytes allocated by this thread so far, -1 if the JVM can't tell */
+        private long allocated() {
+            if (threads instanceof com.sun.management.ThreadMXBean)
+                return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+            return -1;
+        }
+
+        private long gcTime() {
+            long ret = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+                ret += Math.max(0, gc.getCollectionTime());
+            return ret;
+        }
+    }
+
+    // Overlaps fetching with rendering. A producer thread pulls rows into a
+    // bounded ring of preallocated row buffers, transformer work runs on a
+    // pool of workers and the caller consumes the rows in fetch order.
+    static class RowPipeline {
+
+        static final int RING_SIZE = 256;
+
+        interface Cursor {
+            boolean next() throws Exception;
+        }
+
+        interface RowStep {
+            void apply(Object[] row) throws Exception;
+        }
+
+        private final Object[][] ring;
+        private final boolean[] ready;
+        private long produced, consumed, errorAt;
+        private boolean done;
+        private volatile boolean stopped;
+        private Throwable error;
+
+        RowPipeline(int capacity, int numCols) {
+            ring = new Object[capacity][numCols];
+            ready = new boolean[capacity];
+        }
+
+        /* transform may be null, rows handed to the consumer are reused once it returns.
+           a failure is thrown once all rows fetched before the failing one are consumed */
+        void run(Cursor cursor, RowStep fill, RowStep transform, int workers, RowStep consumer) throws Exception {
+            ExecutorService pool = transform == null ? null : Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+                Thread t = new Thread(r, "jdbcc-transform");
+                t.setDaemon(true);
+                return t;
+            });
+            Thread producer = new Thread(() -> produce(cursor, fill, transform, pool), "jdbcc-fetch");
+            producer.setDaemon(true);
+            producer.start();
+            try {
+                while (true) {
+                    Object[] row;
+                    synchronized (this) {
+                        int slot = (int) (consumed % ring.length);
+                        while (!(consumed < produced && ready[slot]) && !failed() && !(done && consumed == produced))
+                            wait();
+                        if (failed()) {
+                            if (error instanceof Exception)
+                                throw (Exception) error;
+                            throw new RuntimeException(error);
+                        }
+                        if (!(consumed < produced && ready[slot]))
+                            break;
+                        row = ring[slot];
+                    }
+                    consumer.apply(row);
+                    synchronized (this) {
+                        consumed++;
+                        notifyAll();
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    stopped = true;
+                    notifyAll();
+                }
+                producer.join();
+                if (pool != null)
+                    pool.shutdownNow();
+            }
+        }
+
+        private void produce(Cursor cursor, RowStep fill, RowStep transform, ExecutorService pool) {
+            try {
+                while (!stopped && cursor.next()) {
+                    int slot;
+                    long seq;
+                    synchronized (this) {
+                        while (produced - consumed == ring.length && !stopped && error == null)
+                            wait();
+                        if (stopped || error != null)
+                            break;
+                        seq = produced;
+                        slot = (int) (seq % ring.length);
+                        ready[slot] = false;
+                    }
+                    Object[] row = ring[slot];
+                    fill.apply(row);
+                    if (pool != null) {
+                        pool.execute(() -> {
+                            try {
+                                transform.apply(row);
+                                synchronized (RowPipeline.this) {
+                                    ready[slot] = true;
+                                    notifyAll();
+                                }
+                            } catch (Throwable t) {
+                                fail(seq, t);
+                            }
+                        });
+                    }
+                    synchronized (this) {
+                        if (pool == null)
+                            ready[slot] = true;
+                        produced++;
+                        notifyAll();
+                    }
+                }
+            } catch (Throwable t) {
+                /* only this thread advances produced, the failing row is the next one */
+                fail(produced, t);
+            }
+            synchronized (this) {
+                done = true;
+                notifyAll();
+            }
+        }
+
+        /* keeps the failure of the earliest row, the consumer stops right before it */
+        private synchronized void fail(long seq, Throwable t) {
+            if (error == null || seq < errorAt) {
+                error = t;
+                errorAt = seq;
+            }
+            notifyAll();
+        }
+
+        private boolean failed() {
+            return error != null && consumed >= errorAt;
+        }
+    }
+
+    // Keeps the last few results in a columnar store so they can be re-printed,
+    // sorted, filtered and paged without running the query again. Integral and
+    // floating point columns go to typed segments, everything else is
+    // dictionary encoded. Segments are memory mapped from a spill file once the
+    // heap budget is used up, and dictionaries stop growing then: new values go
+    // to the spill file as they are. A result whose spill file outgrows its
+    // limit is not cached.
+    public static class ResultCache {
+
+        static final int CHUNK = 4096, PAGE = 1024 * 1024;
+        static final List<String> OPERATORS = Arrays.asList("=", "!=", "<", "<=", ">", ">=", "like");
+
+        private final LinkedList<CachedResult> results = new LinkedList<>();
+        private long heapUsed;
+        private int nextId = 1;
+        private CachedResult current;
+
+        synchronized CachedResult create(String sql, String[] names, String[] types, int[] sqlTypes, boolean[] transformed, boolean[] integral, int capacity, long heapBudget, long spillLimit) {
+            CachedResult r = new CachedResult(nextId++, sql, names, types, sqlTypes, transformed, integral, heapBudget, spillLimit);
+            results.addFirst(r);
+            while (results.size() > Math.max(1, capacity))
+                results.removeLast().release();
+            current = r;
+            return r;
+        }
+
+        synchronized boolean contains(CachedResult r) {
+            return results.contains(r);
+        }
+
+        synchronized void drop(CachedResult r) {
+            if (results.remove(r))
+                r.release();
+            if (current == r)
+                current = null;
+        }
+
+        public synchronized CachedResult current() {
+            return current;
+        }
+
+        public synchronized CachedResult select(int id) {
+            for (CachedResult r : results) {
+                if (r.id == id)
+                    return current = r;
+            }
+            throw new IllegalArgumentException("no cached result with id " + id);
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-4s %-10s %-10s %-10s %s\n", "id", "rows", "heap KB", "spill KB", "query"));
+            for (CachedResult r : results) {
+                sb.append(String.format("%-4s %-10d %-10d %-10d %s\n",
+                        (r == current ? "*" : "") + r.id, r.rows, r.heapBytes / 1024, r.spilledBytes / 1024, r.sql));
+            }
+            return sb.toString();
+        }
+
+        /* what a typed getter of a cached result set returns for a stored value */
+        static Object convert(Object v, String getter, Object[] args) throws SQLException {
+            try {
+                switch (getter) {
+                    case "getString":
+                        return v == null ? null : v.toString();
+                    case "getBoolean":
+                        return v != null && (v instanceof Number ? ((Number) v).doubleValue() != 0 : v.toString().equals("1") || v.toString().equalsIgnoreCase("true"));
+                    case "getByte":
+                        return v == null ? (byte) 0 : number(v).byteValue();
+                    case "getShort":
+                        return v == null ? (short) 0 : number(v).shortValue();
+                    case "getInt":
+                        return v == null ? 0 : number(v).intValue();
+                    case "getLong":
+                        return v == null ? 0L : number(v).longValue();
+                    case "getFloat":
+                        return v == null ? 0f : number(v).floatValue();
+                    case "getDouble":
+                        return v == null ? 0d : number(v).doubleValue();
+                    case "getBigDecimal":
+                        if (v == null)
+                            return null;
+                        BigDecimal d = v instanceof BigDecimal ? (BigDecimal) v : new BigDecimal(v.toString().trim());
+                        /* the deprecated getBigDecimal(column, scale) */
+                        return args.length == 2 ? d.setScale((int) args[1], RoundingMode.HALF_UP) : d;
+                    case "getTimestamp":
+                        return v == null ? null : timestamp(v);
+                    case "getDate":
+                        return v == null ? null : new java.sql.Date(timestamp(v).getTime());
+                    case "getTime":
+                        return v == null ? null : new Time(timestamp(v).getTime());
+                }
+                return v;
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                throw new SQLException("can't convert [" + v + "] with " + getter, e);
+            }
+        }
+
+        private static Number number(Object v) {
+            return v instanceof Number ? (Number) v : new BigDecimal(v.toString().trim());
+        }
+
+        /* dates and times are kept as text, in the forms their toString() gives */
+        private static Timestamp timestamp(Object v) {
+            String s = v.toString().trim().replace('T', ' ');
+            if (s.indexOf('-') == -1)
+                s = "1970-01-01 " + s;
+            else if (s.indexOf(' ') == -1)
+                s += " 00:00:00";
+            return Timestamp.valueOf(s);
+        }
+
+        private synchronized ByteBuffer allocate(CachedResult owner, int bytes) throws IOException {
+            if (reserve(owner, bytes))
+                return ByteBuffer.allocate(bytes);
+            return spill(owner, bytes);
+        }
+
+        private synchronized ByteBuffer spill(CachedResult owner, int bytes) throws IOException {
+            ByteBuffer buf = owner.spill(bytes);
+            owner.spilledBytes += bytes;
+            return buf;
+        }
+
+        /* accounts bytes kept on the heap, false once the budget doesn't allow them */
+        private synchronized boolean reserve(CachedResult owner, long bytes) {
+            if (heapUsed + bytes > owner.heapBudget)
+                return false;
+            owner.heapBytes += bytes;
+            heapUsed += bytes;
+            return true;
+        }
+
+        public class CachedResult {
+
+            public final int id;
+            public final String sql;
+            private final String[] names, types;
+            private final int[] sqlTypes;
+            private final Column[] columns;
+            private final long heapBudget, spillLimit;
+            private int rows;
+            private long heapBytes, spilledBytes;
+            private FileChannel spillFile;
+            private long spillPos;
+
+            /* row numbers of the current view, null for all the rows in fetch order */
+            private int[] view;
+
+            /* integral marks the NUMERIC / DECIMAL columns whose values fit a long */
+            CachedResult(int id, String sql, String[] names, String[] types, int[] sqlTypes, boolean[] transformed, boolean[] integral, long heapBudget, long spillLimit) {
+                this.id = id;
+                this.sql = sql;
+                this.names = names;
+                this.types = types;
+                this.sqlTypes = sqlTypes;
+                this.heapBudget = heapBudget;
+                this.spillLimit = spillLimit;
+                columns = new Column[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    switch (transformed[i] ? Types.VARCHAR : sqlTypes[i]) {
+                        case Types.TINYINT:
+                        case Types.SMALLINT:
+                        case Types.INTEGER:
+                        case Types.BIGINT:
+                            columns[i] = new LongColumn(false);
+                            break;
+                        case Types.NUMERIC:
+                        case Types.DECIMAL:
+                            columns[i] = integral[i] ? new LongColumn(true) : new DictColumn(true);
+                            break;
+                        case Types.REAL:
+                        case Types.FLOAT:
+                        case Types.DOUBLE:
+                            columns[i] = new DoubleColumn();
+                            break;
+                        default:
+                            columns[i] = new DictColumn(false);
+                    }
+                }
+            }
+
+            public void add(Object[] row) throws IOException {
+                for (int i = 0; i < columns.length; i++)
+                    columns[i].put(rows, row[i]);
+                rows++;
+            }
+
+            public Object get(int row, int col) {
+                return columns[col].get(row);
+            }
+
+            public int size() {
+                return view == null ? rows : view.length;
+            }
+
+            /* row number of the i'th row of the view */
+            int at(int i) {
+                return view == null ? i : view[i];
+            }
+
+            int column(String name) {
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i].equalsIgnoreCase(name))
+                        return i;
+                }
+                throw new IllegalArgumentException("no column " + name + " in " + Arrays.toString(names));
+            }
+
+            public void reset() {
+                view = null;
+            }
+
+            public void sort(String col, boolean desc) {
+                Column c = columns[column(col)];
+                Comparator<Integer> cmp = c::compare;
+                view = IntStream.range(0, size()).map(this::at).boxed()
+                        .sorted(desc ? cmp.reversed() : cmp)
+                        .mapToInt(Integer::intValue).toArray();
+            }
+
+            public void filter(String col, String op, String value) {
+                int ci = column(col);
+                Column c = columns[ci];
+                if (!OPERATORS.contains(op.toLowerCase()))
+                    throw new IllegalArgumentException("unknown operator " + op + ", use one of " + String.join(" ", OPERATORS));
+                StringBuilder regex = new StringBuilder();
+                for (String part : value.split("((?<=[%_])|(?=[%_]))"))
+                    regex.append(part.equals("%") ? ".*" : part.equals("_") ? "." : Pattern.quote(part));
+                Pattern like = op.equalsIgnoreCase("like") ? Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL) : null;
+                view = IntStream.range(0, size()).map(this::at).filter(r -> {
+                    Object v = c.get(r);
+                    if (value.equalsIgnoreCase("null"))
+                        return op.equals("=") == (v == null);
+                    if (v == null)
+                        return false;
+                    if (like != null)
+                        return like.matcher(v.toString()).matches();
+                    int d = c.numeric() ? new BigDecimal(v.toString()).compareTo(new BigDecimal(value)) : v.toString().compareTo(value);
+                    switch (op) {
+                        case "=": return d == 0;
+                        case "!=": return d != 0;
+                        case "<": return d < 0;
+                        case "<=": return d <= 0;
+                        case ">": return d > 0;
+                        default: return d >= 0;
+                    }
+                }).toArray();
+            }
+
+            private ByteBuffer spill(int bytes) throws IOException {
+                if (spillPos + bytes > spillLimit)
+                    throw new IOException("result " + id + " is over its spill limit of " + spillLimit + " bytes");
+                if (spillFile == null) {
+                    Path p = Files.createTempFile("jdbcc_cache_" + id + "_", ".seg");
+                    spillFile = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                ByteBuffer buf = spillFile.map(FileChannel.MapMode.READ_WRITE, spillPos, bytes);
+                spillPos += bytes;
+                return buf;
+            }
+
+            void release() {
+                synchronized (ResultCache.this) {
+                    heapUsed -= heapBytes;
+                }
+                try {
+                    if (spillFile != null)
+                        spillFile.close();
+                } catch (IOException e) {
+                }
+            }
+
+            /* a scrollable, read only result set over the current view */
+            public ResultSet resultSet() {
+                int[] pos = {-1};
+                Object[] last = {null};
+                ResultSetMetaData md = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSetMetaData.class}, (p, m, a) -> {
+                    switch (m.getName()) {
+                        case "getColumnCount":
+                            return names.length;
+                        case "getColumnName":
+                        case "getColumnLabel":
+                            return names[(int) a[0] - 1];
+                        case "getColumnTypeName":
+                            return types[(int) a[0] - 1];
+                        case "getColumnType":
+                            return sqlTypes[(int) a[0] - 1];
+                    }
+                    throw new SQLFeatureNotSupportedException(m.getName());
+                });
+                return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class}, (p, m, a) -> {
+                    int n = size();
+                    switch (m.getName()) {
+                        case "next":
+                            pos[0] = Math.min(pos[0] + 1, n);
+                            return pos[0] < n;
+                        case "previous":
+                            pos[0] = Math.max(pos[0] - 1, -1);
+                            return pos[0] >= 0;
+                        case "first":
+                            pos[0] = 0;
+                            return n > 0;
+                        case "last":
+                            pos[0] = n - 1;
+                            return n > 0;
+                        case "beforeFirst":
+                            pos[0] = -1;
+                            return null;
+                        case "afterLast":
+                            pos[0] = n;
+                            return null;
+                        case "absolute":
+                            int r = (int) a[0];
+                            pos[0] = Math.max(-1, Math.min(n, r >= 0 ? r - 1 : n + r));
+                            return pos[0] >= 0 && pos[0] < n;
+                        case "relative":
+                            pos[0] = Math.max(-1, Math.min(n, pos[0] + (int) a[0]));
+                            return pos[0] >= 0 && pos[0] < n;
+                        case "getRow":
+                            return pos[0] >= 0 && pos[0] < n ? pos[0] + 1 : 0;
+                        case "isBeforeFirst":
+                            return pos[0] == -1 && n > 0;
+                        case "isAfterLast":
+                            return pos[0] == n && n > 0;
+                        case "isFirst":
+                            return pos[0] == 0 && n > 0;
+                        case "isLast":
+                            return pos[0] == n - 1 && n > 0;
+                        case "findColumn":
+                            return column((String) a[0]) + 1;
+                        case "getObject":
+                        case "getString":
+                        case "getBoolean":
+                        case "getByte":
+                        case "getShort":
+                        case "getInt":
+                        case "getLong":
+                        case "getFloat":
+                        case "getDouble":
+                        case "getBigDecimal":
+                        case "getDate":
+                        case "getTime":
+                        case "getTimestamp":
+                            if (pos[0] < 0 || pos[0] >= n)
+                                throw new SQLException("result set is not on a row");
+                            Object v = last[0] = get(at(pos[0]), a[0] instanceof String ? column((String) a[0]) : (int) a[0] - 1);
+                            return convert(v, m.getName(), a);
+                        case "wasNull":
+                            return last[0] == null;
+                        case "getMetaData":
+                            return md;
+                        case "getType":
+                            return ResultSet.TYPE_SCROLL_INSENSITIVE;
+                        case "getConcurrency":
+                            return ResultSet.CONCUR_READ_ONLY;
+                        case "getFetchSize":
+                            return 0;
+                        case "setFetchSize":
+                        case "close":
+                            return null;
+                        case "isClosed":
+                            return false;
+                        case "isWrapperFor":
+                            return ((Class<?>) a[0]).isInstance(CachedResult.this);
+                        case "unwrap":
+                            return CachedResult.this;
+                        case "toString":
+                            return "cached result " + id + " [" + sql + "]";
+                        case "hashCode":
+                            return System.identityHashCode(p);
+                        case "equals":
+                            return p == a[0];
+                    }
+                    throw new SQLFeatureNotSupportedException(m.getName());
+                });
+            }
+
+            abstract class Column {
+                private final List<ByteBuffer> chunks = new ArrayList<>();
+                private final int width;
+
+                Column(int width) {
+                    this.width = width;
+                }
+
+                ByteBuffer chunk(int row) throws IOException {
+                    if (row / CHUNK == chunks.size())
+                        chunks.add(allocate(CachedResult.this, CHUNK * width));
+                    return chunks.get(row / CHUNK);
+                }
+
+                ByteBuffer chunkOf(int row) {
+                    return chunks.get(row / CHUNK);
+                }
+
+                int offset(int row) {
+                    return (row % CHUNK) * width;
+                }
+
+                boolean numeric() {
+                    return true;
+                }
+
+                abstract void put(int row, Object v) throws IOException;
+
+                abstract Object get(int row);
+
+                abstract int compare(int a, int b);
+            }
+
+            class LongColumn extends Column {
+                private final BitSet nulls = new BitSet();
+                /* values come back as BigDecimal, as the driver returned them */
+                private final boolean decimal;
+
+                LongColumn(boolean decimal) {
+                    super(8);
+                    this.decimal = decimal;
+                }
+
+                void put(int row, Object v) throws IOException {
+                    ByteBuffer c = chunk(row);
+                    if (v == null)
+                        nulls.set(row);
+                    else if (v instanceof BigDecimal)
+                        c.putLong(offset(row), ((BigDecimal) v).longValueExact());
+                    else
+                        c.putLong(offset(row), v instanceof Number ? ((Number) v).longValue() : Long.parseLong(v.toString()));
+                }
+
+                Object get(int row) {
+                    if (nulls.get(row))
+                        return null;
+                    long v = chunkOf(row).getLong(offset(row));
+                    return decimal ? BigDecimal.valueOf(v) : v;
+                }
+
+                int compare(int a, int b) {
+                    if (nulls.get(a) || nulls.get(b))
+                        return Boolean.compare(!nulls.get(a), !nulls.get(b));
+                    return Long.compare(chunkOf(a).getLong(offset(a)), chunkOf(b).getLong(offset(b)));
+                }
+            }
+
+            class DoubleColumn extends Column {
+                private final BitSet nulls = new BitSet();
+
+                DoubleColumn() {
+                    super(8);
+                }
+
+                void put(int row, Object v) throws IOException {
+                    ByteBuffer c = chunk(row);
+                    if (v == null)
+                        nulls.set(row);
+                    else
+                        c.putDouble(offset(row), v instanceof Number ? ((Number) v).doubleValue() : Double.parseDouble(v.toString()));
+                }
+
+                Object get(int row) {
+                    return nulls.get(row) ? null : chunkOf(row).getDouble(offset(row));
+                }
+
+                int compare(int a, int b) {
+                    if (nulls.get(a) || nulls.get(b))
+                        return Boolean.compare(!nulls.get(a), !nulls.get(b));
+                    return Double.compare(chunkOf(a).getDouble(offset(a)), chunkOf(b).getDouble(offset(b)));
+                }
+            }
+
+            /* codes: -1 for null, dictionary indexes, or -2 and below for values spilled as they are */
+            class DictColumn extends Column {
+                private final Map<String, Integer> codes = new HashMap<>();
+                private final List<String> dict = new ArrayList<>();
+                private final boolean numeric;
+                /* length prefixed UTF-8 values and, per spilled value, its page << 32 | position */
+                private final List<ByteBuffer> pages = new ArrayList<>(), refs = new ArrayList<>();
+                private int spilled, pagePos;
+
+                DictColumn(boolean numeric) {
+                    super(4);
+                    this.numeric = numeric;
+                }
+
+                boolean numeric() {
+                    return numeric;
+                }
+
+                void put(int row, Object v) throws IOException {
+                    int code = -1;
+                    if (v != null) {
+                        String s = v.toString();
+                        Integer known = codes.get(s);
+                        if (known != null) {
+                            code = known;
+                        } else if (reserve(CachedResult.this, 2L * s.length() + 64)) {
+                            code = dict.size();
+                            dict.add(s);
+                            codes.put(s, code);
+                        } else {
+                            code = spill(s);
+                        }
+                    }
+                    chunk(row).putInt(offset(row), code);
+                }
+
+                private int spill(String s) throws IOException {
+                    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                    if (pages.isEmpty() || pagePos + 4 + b.length > pages.get(pages.size() - 1).capacity()) {
+                        pages.add(ResultCache.this.spill(CachedResult.this, Math.max(PAGE, 4 + b.length)));
+                        pagePos = 0;
+                    }
+                    ByteBuffer page = pages.get(pages.size() - 1).duplicate();
+                    page.position(pagePos);
+                    page.putInt(b.length).put(b);
+                    if (spilled % CHUNK == 0)
+                        refs.add(allocate(CachedResult.this, CHUNK * 8));
+                    refs.get(spilled / CHUNK).putLong((spilled % CHUNK) * 8, (long) (pages.size() - 1) << 32 | pagePos);
+                    pagePos = page.position();
+                    return -2 - spilled++;
+                }
+
+                private String spilledValue(int code) {
+                    int k = -2 - code;
+                    long ref = refs.get(k / CHUNK).getLong((k % CHUNK) * 8);
+                    ByteBuffer page = pages.get((int) (ref >>> 32)).duplicate();
+                    page.position((int) ref);
+                    byte[] b = new byte[page.getInt()];
+                    page.get(b);
+                    return new String(b, StandardCharsets.UTF_8);
+                }
+
+                Object get(int row) {
+                    int code = chunkOf(row).getInt(offset(row));
+                    if (code == -1)
+                        return null;
+                    String s = code >= 0 ? dict.get(code) : spilledValue(code);
+                    return numeric ? new BigDecimal(s) : s;
+                }
+
+                @SuppressWarnings("unchecked")
+                int compare(int a, int b) {
+                    Object x = get(a), y = get(b);
+                    if (x == null || y == null)
+                        return Boolean.compare(x != null, y != null);
+                    return ((Comparable<Object>) x).compareTo(y);
+                }
+            }
+        }
+    }
+
     // https://gist.github.com/mmpataki/8514550e3b8aa97f3e0cd98011e4e553
     public class Configuration {
 
@@ -95,6 +1943,53 @@ public class JDBCClient {
         @Exposed("Enable debug logging")
         public boolean debug = false;
 
+        // fetch control
+        @Argument(keys = {"--fetchsize"}, help = "Rows fetched per round trip (0 for driver default)")
+        @Exposed("Rows fetched per round trip")
+        public int fetchSize = 0;
+
+        @Argument(keys = {"--adaptivefetch"}, help = "Tunes the fetch size from observed row size and round trip latency")
+        @Exposed("Adaptive fetch size tuning")
+        public boolean adaptiveFetch = false;
+
+        @Argument(keys = {"--fetchbudget"}, help = "Memory budget (bytes) of a fetch batch for adaptive fetch")
+        @Exposed("Memory budget of a fetch batch")
+        public long fetchMemoryBudget = 4 * 1024 * 1024;
+
+        @Argument(keys = {"--fetchlatency"}, help = "Target latency (ms) of a fetch batch for adaptive fetch")
+        @Exposed("Target latency of a fetch batch")
+        public long fetchTargetLatency = 200;
+
+        @Argument(keys = {"--pipeline"}, help = "Fetches rows on a separate thread with this many transformer workers (0 disables it)")
+        @Exposed("Transformer workers of the fetch pipeline")
+        public int pipelineWorkers = 0;
+
+        // result cache
+        @Argument(keys = {"--cache"}, help = "Number of results kept in the result cache (0 disables it)")
+        @Exposed("Number of results kept in the result cache")
+        public int cacheResults = 0;
+
+        @Argument(keys = {"--cacheheap"}, help = "Heap budget (bytes) of the result cache, spills to disk beyond it")
+        @Exposed("Heap budget of the result cache")
+        public long cacheHeapBudget = 64 * 1024 * 1024;
+
+        @Argument(keys = {"--cachespill"}, help = "Spill file limit (bytes) of a cached result, larger results are not cached")
+        @Exposed("Spill file limit of a cached result")
+        public long cacheSpillLimit = 1024L * 1024 * 1024;
+
+        @Argument(keys = {"--querycache"}, help = "Seconds a read only query is served from the query cache (0 disables it)")
+        @Exposed("Seconds a read only query is served from the query cache")
+        public int queryCacheTtl = 0;
+
+        @Argument(keys = {"--querycachesize"}, help = "Size (bytes) of the query cache")
+        @Exposed("Size of the query cache")
+        public long queryCacheSize = 32 * 1024 * 1024;
+
+        // catalog crawl
+        @Argument(keys = {"--crawlthreads"}, help = "Number of connections used by !crawl")
+        @Exposed("Number of connections used by crawl")
+        public int crawlThreads = 4;
+
         @Argument(keys = {"-h", "--help"}, help = "Prints help")
         private boolean help;
 
@@ -237,6 +2132,9 @@ public class JDBCClient {
         @Exposed("Database metadata object")
         public DatabaseMetaData md;
 
+        @Exposed("Scrollable result set over the current cached result")
+        public ResultSet crs;
+
 
         // Exposed methods in shell
         @Exposed("Connect to a database")
@@ -254,6 +2152,74 @@ public class JDBCClient {
             return client.executeSql(sql);
         }
 
+        @Exposed("Query cache statistics")
+        public QueryCache queryCache() {
+            return client.queryCache;
+        }
+
+        @Exposed("List the cached results")
+        public ResultCache cached() {
+            return client.cache;
+        }
+
+        @Exposed("Print a cached result, clearing its sort and filters")
+        public String view(@Exposed("id") int id) throws Exception {
+            ResultCache.CachedResult r = client.cache.select(id);
+            r.reset();
+            return client.printPage(r, 1);
+        }
+
+        @Exposed("Sort the current cached result by a column")
+        public String sort(@Exposed("column") String column, @Exposed("descending") boolean desc) throws Exception {
+            client.cached().sort(column, desc);
+            return client.printPage(client.cached(), 1);
+        }
+
+        @Exposed("Filter the current cached result (op: = != < <= > >= like)")
+        public String filter(@Exposed("column") String column, @Exposed("op") String op, @Exposed("value") String value) throws Exception {
+            client.cached().filter(column, op, value);
+            return client.printPage(client.cached(), 1);
+        }
+
+        @Exposed("Print a page of the current cached result")
+        public String page(@Exposed("page") int page) throws Exception {
+            return client.printPage(client.cached(), page);
+        }
+
+        @Exposed("Profile fetching a query without rendering it")
+        public String profile(@Exposed("sqlQuery") String sql) throws Exception {
+            return client.new Profiler().run(sql);
+        }
+
+        @Exposed("Crawl the catalog of matching schemas in background")
+        public String crawl(@Exposed("schemaPattern") String schemaPattern) throws Exception {
+            return client.crawl(schemaPattern);
+        }
+
+        @Exposed("Search the crawled catalog by name prefix")
+        public String find(@Exposed("prefix") String prefix) throws Exception {
+            return String.join("\n", client.catalog().find(prefix, conf.resultPrintLimit));
+        }
+
+        @Exposed("Stream a query as a publisher of row batches")
+        public ResultPublisher publish(@Exposed("sqlQuery") String sql) {
+            return client.publish(sql);
+        }
+
+        @Exposed("Stream a query to the console (and recording)")
+        public long show(@Exposed("sqlQuery") String sql) throws Exception {
+            BatchSubscriber sub = client.new RecordSubscriber();
+            client.publish(sql).subscribe(sub);
+            return sub.await();
+        }
+
+        @Exposed("Export the result of a query to a CSV file")
+        public long export(@Exposed("sqlQuery") String sql, @Exposed("csvFile") String file) throws Exception {
+            BatchSubscriber sub = new ExportSubscriber(new BufferedWriter(new FileWriter(file)), conf.transformers);
+            client.publish(sql).subscribe(sub);
+            return sub.await();
+        }
+
         @Exposed("Print this help")
         public String help(String... on) {
             if (on.length == 0) {
@@ -307,6 +2273,7 @@ public class JDBCClient {
             rs = cli.rs;
             stmt = cli.stmt;
             md = conn.getMetaData();
+            crs = cli.cache.current() == null ? null : cli.cache.current().resultSet();
         }
 
     }
@@ -342,7 +2309,8 @@ public class JDBCClient {
     public boolean close() {
         clog("\nclosing the connection");
         try {
-            conn.close();
+            if (conn != null)
+                conn.close();
             if (fw != null)
                 fw.close();
         } catch (Exception ex) {
@@ -357,9 +2325,60 @@ public class JDBCClient {
     }
 
     private boolean executeSql(String query) throws Exception {
+        if (!QueryCache.readOnly(query))
+            queryCache.invalidate(query);
+        if (conf.fetchSize > 0)
+            stmt.setFetchSize(conf.fetchSize);
         return stmt.execute(query);
     }
 
+    private final ResultCache cache = new ResultCache();
+    private final QueryCache queryCache = new QueryCache();
+
+    ResultCache.CachedResult cached() {
+        ResultCache.CachedResult r = cache.current();
+        if (r == null)
+            throw new IllegalStateException("no cached result, enable the cache with !conf.cacheResults = 5;");
+        return r;
+    }
+
+    String printPage(ResultCache.CachedResult r, int page) throws Exception {
+        int limit = conf.resultPrintLimit, pages = limit > 0 ? Math.max(1, (r.size() + limit - 1) / limit) : 1;
+        ResultSet crs = r.resultSet();
+        if (limit > 0)
+            crs.absolute((Math.max(1, page) - 1) * limit);
+        printResult(crs, null, false);
+        return String.format("cached result %d: page %d of %d (%d rows)", r.id, Math.max(1, page), pages, r.size());
+    }
+
+    private Catalog catalog;
+
+    synchronized Catalog catalog() throws IOException {
+        if (catalog == null)
+            catalog = Catalog.load(new File("jdbcc_catalog_" + Integer.toHexString((conf.url + conf.user).hashCode()) + ".bin"));
+        return catalog;
+    }
+
+    public String crawl(String schemaPattern) throws Exception {
+        Crawler crawler = new Crawler(catalog(), schemaPattern);
+        Thread t = new Thread(() -> {
+            try {
+                clog(crawler.run());
+            } catch (Exception e) {
+                clog("catalog crawl of " + schemaPattern + " failed: " + e.getMessage());
+                if (conf.debug)
+                    e.printStackTrace();
+            }
+        }, "jdbcc-crawl");
+        t.setDaemon(true);
+        t.start();
+        return "crawling " + schemaPattern + " in background, use !find(\"prefix\"); to search";
+    }
+
+    public ResultPublisher publish(String sql) {
+        return new ResultPublisher(conn, sql, conf.fetchSize > 0 ? conf.fetchSize : 100);
+    }
+
     static long start, end;
     private FileWriter fw;
     private BufferedReader sc;
@@ -387,10 +2406,6 @@ public class JDBCClient {
             System.exit(0);
         }
 
-        if (conf.driver != null) {
-            Class.forName(conf.driver);
-        }
-
         if (conf.record) {
             String recordFile = "jdbcc_record_" + "_" + ((new Date()).getTime()) + ".html";
             try {
@@ -413,39 +2428,98 @@ public class JDBCClient {
         conf.transformers.put("CLOB", new BClobToString());
     }
 
-    public void listProps(Object o, Class<?> cls, String objname) {
-        debug(objname + " properties");
+    public String listProps(Object o, Class<?> cls, String objname) {
+        StringBuilder sb = new StringBuilder(objname + " properties\n");
         for (Method m : cls.getDeclaredMethods()) {
             String rett = m.getReturnType().toString();
             if (m.getParameterCount() == 0 && ((!rett.startsWith("class ") && !rett.startsWith("interface ") && !rett.equals("void")) || rett.startsWith("class java.lang.String"))) {
                 try {
-                    debug(String.format("\t%s: %s", m.getName(), m.invoke(o)));
+                    sb.append(String.format("\t%s: %s\n", m.getName(), m.invoke(o)));
                 } catch (Exception e) {
-                    debug(String.format("\t%s() failed [%s]", m.getName(), e.getMessage()));
+                    sb.append(String.format("\t%s() failed [%s]\n", m.getName(), e.getMessage()));
                 }
             }
         }
+        return sb.toString();
     }
 
-    public void shell() throws Exception {
+    private CompletableFuture<Void> connecting;
+    private CompletableFuture<String> connProps;
 
-        System.out.println("shell started... ");
+    /* driver loading and the connection handshake run while the prompt is up */
+    private void startConnecting() {
+        connecting = CompletableFuture.runAsync(() -> {
+            try {
+                if (conf.driver != null) {
+                    Class.forName(conf.driver);
+                }
+                connect(conf.url, conf.user, conf.password);
+                stmt = conn.createStatement();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        /* don't wait for the next input to tell the connection failed */
+        connecting.whenComplete((v, e) -> {
+            if (e != null)
+                connectionFailed(e instanceof CompletionException ? e.getCause() : e);
+        });
+        if (conf.debug) {
+            connProps = connecting.thenApplyAsync(v -> {
+                try {
+                    return listProps(conn, Connection.class, "connection") + listProps(conn.getMetaData(), DatabaseMetaData.class, "databasemetadata");
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+    }
 
-        connect(conf.url, conf.user, conf.password);
-        stmt = conn.createStatement();
+    /* the shell is of no use without the connection, report once and exit */
+    private synchronized void connectionFailed(Throwable t) {
+        t.printStackTrace();
+        clog("connection status : [failed]");
+        System.exit(1);
+    }
 
-        if (conf.debug) {
-            $("<pre>");
-            listProps(conn, Connection.class, "connection");
-            listProps(conn.getMetaData(), DatabaseMetaData.class, "databasemetadata");
-            $("</pre>");
+    /* queries typed so far wait here for the connection */
+    private void awaitConnection() throws Exception {
+        if (!connecting.isDone())
+            clog("waiting for the connection...");
+        try {
+            connecting.get();
+        } catch (ExecutionException e) {
+            connectionFailed(e.getCause());
+        }
+    }
+
+    private void printConnProps() {
+        if (connProps == null || !connProps.isDone())
+            return;
+        $("<pre>");
+        try {
+            debug(connProps.join());
+        } catch (CompletionException e) {
+            debug("listing connection properties failed [" + e.getCause().getMessage() + "]");
         }
+        $("</pre>");
+        connProps = null;
+    }
+
+    public void shell() throws Exception {
+
+        long shellStart = System.currentTimeMillis(), firstInput = 0;
+        System.out.println("shell started... ");
+
+        startConnecting();
 
         clog("Type help; for shell help");
+        clog("time to prompt: " + (System.currentTimeMillis() - shellStart) + "ms");
 
         do {
-            boolean status = false;
+            boolean status = false, fromCache = false;
             Object result = null;
+            printConnProps();
             String query = readQuery();
 
             if (query == null)
@@ -454,6 +2528,12 @@ public class JDBCClient {
             if (query.trim().isEmpty())
                 continue;
 
+            /* time to first result leaves out the time spent typing */
+            if (firstInput == 0)
+                firstInput = System.currentTimeMillis();
+            awaitConnection();
+            printConnProps();
+
             query = query.trim();
             cdebug("Text read from console: " + query);
 
@@ -473,15 +2553,17 @@ public class JDBCClient {
                 if (!sql) {
                     result = processJavaCode(conn.getMetaData(), query.trim());
                 } else {
-                    result = executeSql(query);
+                    ResultSet hit = conf.queryCacheTtl > 0 ? queryCache.get(conn, query, conf.resultPrintLimit) : null;
+                    fromCache = hit != null;
+                    result = fromCache ? hit : executeSql(query);
                 }
                 status = true;
             } catch (Exception e) {
                 e.printStackTrace();
             }
-            long ellapse = pend(executionMode + " execution", "(status: " + (status ? "successful" : "failed") + ")");
+            long ellapse = pend(executionMode + " execution", "(status: " + (status ? "successful" : "failed") + (fromCache ? ", from query cache" : "") + ")");
 
-            $("Time: ").$((((double) ellapse) / 1000)).$("s</pre><pre class='output'>");
+            $("Time: ").$((((double) ellapse) / 1000)).$(fromCache ? "s [query cache hit]" : "s").$("</pre><pre class='output'>");
 
             if (status) {
                 try {
@@ -489,11 +2571,12 @@ public class JDBCClient {
                     if (result instanceof ResultSet) {
                         rs = (ResultSet) result;
                     }
-                    if (sql && ((boolean) result)) {
+                    if (sql && result instanceof Boolean && ((boolean) result)) {
                         rs = stmt.getResultSet();
                     }
                     if (rs != null) {
-                        printResult(rs);
+                        /* a query cache hit holds the printed rows only, too few for the result cache */
+                        printResult(rs, fromCache ? null : query, sql && !fromCache && conf.queryCacheTtl > 0 && QueryCache.readOnly(query));
                     } else {
                         System.out.println(result.toString());
                         $(htmlize(result.toString()));
@@ -501,6 +2584,10 @@ public class JDBCClient {
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
+                if (firstInput > 0) {
+                    clog("time to first result: " + (System.currentTimeMillis() - firstInput) + "ms (since the first input was read)");
+                    firstInput = -1;
+                }
             }
             $("</pre></div>");
         } while (true);
@@ -587,7 +2674,11 @@ public class JDBCClient {
         }
     }
 
-    private void printResult(ResultSet rset) throws Exception {
+    /*
+     * prints the result, keeping it in the result cache if source is given and the cache is on
+     * and in the query cache if queryCacheable
+     */
+    private void printResult(ResultSet rset, String source, boolean queryCacheable) throws Exception {
 
         if (rset == null || conf.resultPrintLimit == 0)
             return;
@@ -623,41 +2714,206 @@ public class JDBCClient {
         }
         System.out.println();
 
-        int rows = 0;
-        try {
-            pstart();
-            for (; (rows != conf.resultPrintLimit) && rset.next(); rows++) {
-                $("<tr>");
-                for (int i = 0; i < numCols; ++i) {
-                    Object data = null;
-                    try {
-                        data = rset.getObject(i + 1);
-                        Transformer tx = null;
-                        if (data != null) {
-                            tx = conf.transformers.get(cols.get(i));
-                            if (tx == null) {
-                                tx = conf.transformers.get(rsmd.getColumnTypeName(i + 1).toUpperCase());
+        /* cached results hold transformed values already */
+        boolean replay = isCached(rset);
+        ResultCache.CachedResult sink = null, stored = null;
+        /* read by the fetch thread of the pipeline too */
+        List<ResultCache.CachedResult> sinks = new CopyOnWriteArrayList<>();
+        if (source != null && (conf.cacheResults > 0 || queryCacheable)) {
+            String[] names = new String[numCols], types = new String[numCols];
+            int[] sqlTypes = new int[numCols];
+            boolean[] transformed = new boolean[numCols], integral = new boolean[numCols];
+            for (int i = 0; i < numCols; i++) {
+                names[i] = rsmd.getColumnName(i + 1);
+                types[i] = rsmd.getColumnTypeName(i + 1);
+                sqlTypes[i] = rsmd.getColumnType(i + 1);
+                transformed[i] = conf.transformers.containsKey(cols.get(i)) || conf.transformers.containsKey(types[i].toUpperCase());
+                integral[i] = integral(rsmd, i + 1);
+            }
+            if (conf.cacheResults > 0)
+                sinks.add(sink = cache.create(source, names, types, sqlTypes, transformed, integral, conf.cacheResults, conf.cacheHeapBudget, conf.cacheSpillLimit));
+            if (queryCacheable)
+                sinks.add(stored = queryCache.create(source, names, types, sqlTypes, transformed, integral, conf.queryCacheSize));
+        }
+
+        int rows = 0, width = maxsize, limit = conf.resultPrintLimit;
+        boolean failed = false;
+        FetchTuner tuner = new FetchTuner(rset, conf.adaptiveFetch, conf.fetchSize > 0, conf.fetchMemoryBudget, conf.fetchTargetLatency);
+        Transformer[] txs = new Transformer[numCols];
+        for (int i = 0; i < numCols && !replay; i++) {
+            txs[i] = conf.transformers.get(cols.get(i));
+            if (txs[i] == null)
+                txs[i] = conf.transformers.get(rsmd.getColumnTypeName(i + 1).toUpperCase());
+        }
+
+        if (conf.pipelineWorkers > 0) {
+            /* rows fetched, rows shown; the result cache needs the rows beyond limit too, the query cache doesn't */
+            long[] counts = {0, 0};
+            ResultCache.CachedResult entry = stored;
+            try {
+                pstart();
+                new RowPipeline(RowPipeline.RING_SIZE, numCols).run(
+                        () -> (counts[0] != limit || sinks.size() > (sinks.contains(entry) ? 1 : 0)) && tuner.next() && ++counts[0] > 0,
+                        row -> fetchRow(rset, row, tuner),
+                        Arrays.stream(txs).anyMatch(Objects::nonNull) ? row -> transformRow(row, txs) : null,
+                        conf.pipelineWorkers,
+                        row -> {
+                            if (counts[1] != limit) {
+                                renderRow(row, width);
+                                if (++counts[1] == limit) {
+                                    endTable((int) counts[1]);
+                                    pstart();
+                                }
                             }
-                        }
-                        if (tx != null) {
-                            data = tx.transform(data);
-                        }
-                    } catch (SQLException e) {
-                    }
-                    System.out.printf("%-" + maxsize + "s |", data);
-                    $("<td>").$(data).$("</td>");
+                            keep(sinks, row, entry);
+                        });
+            } catch (Exception ex) {
+                failed = true;
+                ex.printStackTrace();
+            }
+            rows = (int) counts[1];
+            if (rows != limit)
+                endTable(rows);
+            if (conf.adaptiveFetch || conf.fetchSize > 0) {
+                clog(tuner.report());
+                $("<pre>").$(tuner.report()).$("</pre>");
+            }
+        } else {
+            try {
+                pstart();
+                for (; (rows != limit) && tuner.next(); rows++) {
+                    Object[] row = new Object[numCols];
+                    fetchRow(rset, row, tuner);
+                    transformRow(row, txs);
+                    renderRow(row, width);
+                    keep(sinks, row, stored);
                 }
-                $("</tr>");
-                System.out.println();
+            } catch (Exception ex) {
+                failed = true;
+                ex.printStackTrace();
+            }
+            endTable(rows);
+            if (conf.adaptiveFetch || conf.fetchSize > 0) {
+                clog(tuner.report());
+                $("<pre>").$(tuner.report()).$("</pre>");
+            }
+
+            /* keep the rest of the result in the cache too */
+            try {
+                pstart();
+                while (!sinks.isEmpty() && !failed && rows == limit && tuner.next()) {
+                    Object[] row = new Object[numCols];
+                    fetchRow(rset, row, tuner);
+                    transformRow(row, txs);
+                    keep(sinks, row, stored);
+                }
+            } catch (Exception ex) {
+                failed = true;
+                ex.printStackTrace();
+            }
+        }
+        if (sinks.contains(sink))
+            pend(String.format("cached as result %d (%d rows), time", sink.id, sink.rows));
+        else if (stored != null && queryCache.holds(stored))
+            pend(String.format("cached (%d rows), time", stored.rows));
+        if (stored != null && queryCache.holds(stored)) {
+            /* a partial result must not be served later */
+            if (failed)
+                queryCache.discard(stored);
+            else
+                queryCache.put(conn, source, limit, stored, conf.queryCacheTtl * 1000L, conf.queryCacheSize);
+        }
+    }
+
+    /*
+     * a failing cache must not cut the output short, its entry is dropped instead. stored (the
+     * query cache entry) only takes the printed rows, and is dropped if they outgrow the query
+     * cache
+     */
+    private void keep(List<ResultCache.CachedResult> sinks, Object[] row, ResultCache.CachedResult stored) {
+        for (int i = sinks.size() - 1; i >= 0; i--) {
+            ResultCache.CachedResult r = sinks.get(i);
+            try {
+                r.add(row);
+                if (r == stored && r.heapBytes + r.spilledBytes > conf.queryCacheSize) {
+                    sinks.remove(i);
+                    queryCache.discard(r);
+                } else if (r == stored && r.rows == conf.resultPrintLimit) {
+                    sinks.remove(i);
+                }
+            } catch (Exception e) {
+                clog("not caching the result [" + e + "]");
+                sinks.remove(i);
+                cache.drop(r);
+                queryCache.discard(r);
+            }
+        }
+    }
+
+    /* NUMERIC / DECIMAL without a fraction and up to 18 digits, e.g. Oracle NUMBER(10) */
+    private static boolean integral(ResultSetMetaData rsmd, int col) {
+        try {
+            int type = rsmd.getColumnType(col), precision = rsmd.getPrecision(col);
+            return (type == Types.NUMERIC || type == Types.DECIMAL) && rsmd.getScale(col) == 0 && precision > 0 && precision <= 18;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static boolean isCached(ResultSet rset) {
+        try {
+            return rset.isWrapperFor(ResultCache.CachedResult.class);
+        } catch (Exception | AbstractMethodError e) {
+            return false;
+        }
+    }
+
+    private static void fetchRow(ResultSet rset, Object[] row, FetchTuner tuner) {
+        for (int i = 0; i < row.length; ++i) {
+            try {
+                row[i] = rset.getObject(i + 1);
+                tuner.observe(row[i]);
+            } catch (SQLException e) {
+                row[i] = null;
             }
-        } catch (Exception ex) {
-            ex.printStackTrace();
         }
+    }
+
+    private static void transformRow(Object[] row, Transformer[] txs) throws Exception {
+        for (int i = 0; i < row.length; ++i) {
+            try {
+                if (row[i] != null && txs[i] != null)
+                    row[i] = txs[i].transform(row[i]);
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    private void renderRow(Object[] row, int width) {
+        $("<tr>");
+        for (Object data : row) {
+            System.out.printf("%-" + width + "s |", data);
+            $("<td>").$(data).$("</td>");
+        }
+        $("</tr>");
+        System.out.println();
+    }
+
+    private void endTable(int rows) throws Exception {
         $("</table>");
         System.out.println();
         pend(String.format("%d rows (%s), time", rows, ((conf.resultPrintLimit == -1 || rows < conf.resultPrintLimit) ? "all" : "limited")));
     }
 
+    static Object transform(Map<String, Transformer> transformers, String column, String type, Object data) throws Exception {
+        if (data == null)
+            return null;
+        Transformer tx = transformers.get(column);
+        if (tx == null)
+            tx = transformers.get(type.toUpperCase());
+        return tx == null ? data : tx.transform(data);
+    }
+
     private void log(Object o) {
         clog(o.toString());
         $(o.toString()).$("\n");
@@ -0,0 +1,70 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+// Checks that JDBCClient.RowPipeline hands rows over in fetch order and that a
+// failure only surfaces after every row fetched before the failing one.
+//   javac JDBCClient.java RowPipelineTest.java && java RowPipelineTest
+class RowPipelineTest {
+
+    public static void main(String[] args) throws Exception {
+        ordered(0);
+        ordered(4);
+        failsInTransform();
+        failsInFetch();
+        System.out.println("RowPipelineTest: ok");
+    }
+
+    /* transformers finish out of order, the consumer must still see 0, 1, 2, ... */
+    static void ordered(int workers) throws Exception {
+        long[] next = {0}, seen = {0};
+        JDBCClient.RowPipeline.RowStep transform = workers == 0 ? null : row -> jitter();
+        new JDBCClient.RowPipeline(16, 1).run(() -> next[0] < 5000, row -> row[0] = next[0]++, transform, workers, row -> {
+            check((Long) row[0] == seen[0], "row " + row[0] + " consumed as " + seen[0]);
+            seen[0]++;
+        });
+        check(seen[0] == 5000, "consumed " + seen[0] + " rows, expected 5000");
+    }
+
+    /* the failing row's transform fails first, the slower ones before it still have to come through */
+    static void failsInTransform() throws Exception {
+        long[] next = {0}, seen = {0};
+        try {
+            new JDBCClient.RowPipeline(16, 1).run(() -> next[0] < 5000, row -> row[0] = next[0]++, row -> {
+                if ((Long) row[0] == 100)
+                    throw new IllegalStateException("row 100");
+                Thread.sleep((Long) row[0] >= 90 && (Long) row[0] < 100 ? 20 : 0);
+            }, 4, row -> {
+                check((Long) row[0] == seen[0], "row " + row[0] + " consumed as " + seen[0]);
+                seen[0]++;
+            });
+            check(false, "transform failure was not thrown");
+        } catch (IllegalStateException e) {
+            check("row 100".equals(e.getMessage()), "unexpected failure " + e);
+        }
+        check(seen[0] == 100, "consumed " + seen[0] + " rows before the failure, expected 100");
+    }
+
+    static void failsInFetch() throws Exception {
+        long[] next = {0}, seen = {0};
+        try {
+            new JDBCClient.RowPipeline(16, 1).run(() -> {
+                if (next[0] == 300)
+                    throw new java.sql.SQLException("fetch 300");
+                return true;
+            }, row -> row[0] = next[0]++, row -> jitter(), 4, row -> seen[0]++);
+            check(false, "fetch failure was not thrown");
+        } catch (java.sql.SQLException e) {
+            check("fetch 300".equals(e.getMessage()), "unexpected failure " + e);
+        }
+        check(seen[0] == 300, "consumed " + seen[0] + " rows before the failure, expected 300");
+    }
+
+    static void jitter() throws InterruptedException {
+        if (ThreadLocalRandom.current().nextInt(8) == 0)
+            Thread.sleep(1);
+    }
+
+    static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}